@@ -0,0 +1,280 @@
+/*
+THIS SOFTWARE IS PROVIDED BY ANDREW TRICE "AS IS" AND ANY EXPRESS OR
+IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+EVENT SHALL ANDREW TRICE OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.rjfun.cordova.plugin;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Loads the sounds of a registered manifest on a low priority background
+ * thread, highest priority first. A sound that is played before it has been
+ * prefetched is moved to the front of the queue.
+ */
+public class LowLatencyAssetLoader implements Runnable {
+
+	public interface AssetLoadHandler {
+
+		/**
+		 * Loads the given entry on the loader thread. Implementations must call
+		 * {@link LowLatencyAssetLoader#markLoaded(String)} once the sound can be
+		 * played, which may happen later for asynchronously decoded samples.
+		 *
+		 * @return false if the entry could not be loaded
+		 */
+		boolean loadEntry(Entry entry);
+	}
+
+	public static class Entry implements Comparable<Entry> {
+
+		public final String audioID;
+		public final String assetPath;
+		public final String group;
+		public final int priority;
+		public final boolean fx;
+		public final float volume;
+		public final int voices;
+
+		private final long sequence;
+		private volatile boolean urgent = false;
+		private volatile boolean parked = false;
+		private volatile boolean failed = false;
+		private final CountDownLatch ready = new CountDownLatch(1);
+
+		public Entry(String audioID, String assetPath, String group, int priority, boolean fx, float volume, int voices, long sequence)
+		{
+			this.audioID = audioID;
+			this.assetPath = assetPath;
+			this.group = group;
+			this.priority = priority;
+			this.fx = fx;
+			this.volume = volume;
+			this.voices = voices;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if (urgent != other.urgent)
+				return urgent ? -1 : 1;
+			if (priority != other.priority)
+				return priority > other.priority ? -1 : 1;
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	private static final String LOGTAG = "LowLatencyAudio";
+
+	private final PriorityBlockingQueue<Entry> queue = new PriorityBlockingQueue<Entry>();
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	private final AssetLoadHandler handler;
+	private long sequence = 0;
+	private Thread thread;
+
+	public LowLatencyAssetLoader(AssetLoadHandler handler)
+	{
+		this.handler = handler;
+	}
+
+	public synchronized void start()
+	{
+		if (thread == null) {
+			thread = new Thread(this, "LowLatencyAssetLoader");
+			thread.start();
+		}
+	}
+
+	public synchronized void shutdown()
+	{
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		queue.clear();
+		for (Entry entry : entries.values()) {
+			entry.failed = true;
+			entry.ready.countDown();
+		}
+		entries.clear();
+	}
+
+	/**
+	 * Queues a sound for prefetching.
+	 *
+	 * @return false if the audio id is already registered
+	 */
+	public synchronized boolean register(String audioID, String assetPath, String group, int priority, boolean fx, float volume, int voices)
+	{
+		if (entries.containsKey(audioID))
+			return false;
+
+		Entry entry = new Entry(audioID, assetPath, group, priority, fx, volume, voices, sequence++);
+		entries.put(audioID, entry);
+		queue.add(entry);
+		return true;
+	}
+
+	/**
+	 * Registers a sound that is only loaded once it is played or its group
+	 * is prefetched, e.g. one that was dropped to free memory.
+	 *
+	 * @return false if the audio id is already registered
+	 */
+	public synchronized boolean registerLazy(Entry template)
+	{
+		if (entries.containsKey(template.audioID))
+			return false;
+
+		Entry entry = new Entry(template.audioID, template.assetPath, template.group, template.priority,
+				template.fx, template.volume, template.voices, sequence++);
+		entry.parked = true;
+		entries.put(entry.audioID, entry);
+		return true;
+	}
+
+	public synchronized boolean isPending(String audioID)
+	{
+		return entries.containsKey(audioID);
+	}
+
+	/**
+	 * Forgets a registered sound that has not finished loading yet.
+	 *
+	 * @return false if the audio id was not pending
+	 */
+	public synchronized boolean cancel(String audioID)
+	{
+		Entry entry = entries.remove(audioID);
+		if (entry == null)
+			return false;
+
+		queue.remove(entry);
+		entry.failed = true;
+		entry.ready.countDown();
+		return true;
+	}
+
+	/**
+	 * Moves every pending sound of a group to the front of the queue.
+	 *
+	 * @return the number of sounds promoted
+	 */
+	public synchronized int promoteGroup(String group)
+	{
+		int promoted = 0;
+		for (Entry entry : entries.values()) {
+			if (group.equals(entry.group)) {
+				promote(entry);
+				promoted++;
+			}
+		}
+		return promoted;
+	}
+
+	/**
+	 * Moves a pending sound to the front of the queue and blocks until it has
+	 * been loaded or the timeout expires.
+	 *
+	 * @return true if the sound is ready to play
+	 */
+	public boolean awaitLoaded(String audioID, long timeoutMs)
+	{
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(audioID);
+			if (entry == null)
+				return false;
+			promote(entry);
+		}
+
+		try {
+			if (!entry.ready.await(timeoutMs, TimeUnit.MILLISECONDS))
+				return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return !entry.failed;
+	}
+
+	public void markLoaded(String audioID)
+	{
+		finish(audioID, false);
+	}
+
+	public void markFailed(String audioID)
+	{
+		finish(audioID, true);
+	}
+
+	private void finish(String audioID, boolean failed)
+	{
+		Entry entry;
+		synchronized (this) {
+			entry = entries.remove(audioID);
+		}
+		if (entry != null) {
+			entry.failed = failed;
+			entry.ready.countDown();
+		}
+	}
+
+	private void promote(Entry entry)
+	{
+		if (entry.parked) {
+			entry.parked = false;
+			entry.urgent = true;
+			queue.add(entry);
+			start();
+		}
+		// PriorityBlockingQueue does not reorder on change, so re-insert
+		else if (!entry.urgent && queue.remove(entry)) {
+			entry.urgent = true;
+			queue.add(entry);
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+		while (!Thread.currentThread().isInterrupted()) {
+			Entry entry;
+			try {
+				entry = queue.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			// a played sound must not wait behind background work
+			Process.setThreadPriority(entry.urgent ? Process.THREAD_PRIORITY_DEFAULT : Process.THREAD_PRIORITY_BACKGROUND);
+
+			Log.d(LOGTAG, "prefetch - " + entry.audioID + ": " + entry.assetPath);
+			boolean loaded;
+			try {
+				loaded = handler.loadEntry(entry);
+			} catch (Exception e) {
+				Log.d(LOGTAG, "prefetch failed - " + entry.audioID + ": " + e);
+				loaded = false;
+			}
+			if (!loaded)
+				markFailed(entry.audioID);
+		}
+	}
+}
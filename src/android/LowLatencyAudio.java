@@ -23,29 +23,41 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaWebView;
 import org.apache.cordova.PluginResult;
 import org.apache.cordova.PluginResult.Status;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
+import android.content.res.Configuration;
 import android.media.AudioManager;
 import android.media.SoundPool;
+import android.media.SoundPool.OnLoadCompleteListener;
 import android.util.Log;
 
 /**
  * @author Andrew Trice
  *
  */
-public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompletionHandler {
+public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompletionHandler, LowLatencyAssetLoader.AssetLoadHandler {
 
 	public static final String ERROR_NO_AUDIOID="A reference does not exist for the specified audio id.";
 	public static final String ERROR_AUDIOID_EXISTS="A reference already exists for the specified audio id.";
+	public static final String ERROR_LOAD_TIMEOUT="The audio id did not finish loading within the maximum latency.";
+	public static final String ERROR_AUDIO_PAUSED="Audio is paused while the app is in the background or another app has the audio focus.";
 
 	public static final String PRELOAD_FX="preloadFX";
 	public static final String PRELOAD_AUDIO="preloadAudio";
@@ -55,21 +67,338 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 	public static final String FADE_IN="fadeIn";
 	public static final String FADE_OUT="fadeOut";
 	public static final String UNLOAD="unload";
+	public static final String REGISTER_ASSETS="registerAssets";
+	public static final String PREFETCH_GROUP="prefetchGroup";
+	public static final String SET_RESOURCE_LISTENER="setResourceListener";
+	public static final String SET_LISTENER="setListener";
+	public static final String SET_DISTANCE_MODEL="setDistanceModel";
+	public static final String SET_POSITION="setPosition";
+	public static final String SET_POSITIONS="setPositions";
+	public static final String BENCHMARK_SPATIAL="benchmarkSpatial";
+	public static final String RENDER_OFFLINE="renderOffline";
 
 	public static final int DEFAULT_POLYPHONY_VOICES = 15;
+	public static final long DEFAULT_MAX_LOAD_LATENCY = 1000;
+
+	// sounds idle for longer than this are dropped on memory pressure
+	private static final long COLD_AGE_RUNNING_LOW = 60 * 1000;
+	private static final long COLD_AGE_CRITICAL = 10 * 1000;
+	// SoundPool samples are short, a one-shot stream this old has finished
+	private static final long ONE_SHOT_MAX_AGE = 30 * 1000;
 
 	private static final String LOGTAG = "LowLatencyAudio";
 
-	private static SoundPool soundPool;
-	private static HashMap<String, LowLatencyAudioAsset> assetMap;
-	private static HashMap<String, Integer> soundMap;
-	private static HashMap<String, ArrayList<Integer>> streamMap;
+	private static volatile SoundPool soundPool;
+	private static ConcurrentHashMap<String, LowLatencyAudioAsset> assetMap;
+	private static ConcurrentHashMap<String, Integer> soundMap;
+	private static ConcurrentHashMap<String, ArrayList<SampleStream>> streamMap;
 	private static CallbackContext callbackContext;
+	private static HashMap<Integer, String> pendingSampleMap;
+	private static LowLatencyAssetLoader assetLoader;
+	private static long maxLoadLatency = DEFAULT_MAX_LOAD_LATENCY;
+	private static ConcurrentHashMap<String, LowLatencyAssetLoader.Entry> entryMap;
+	private static ConcurrentHashMap<String, Long> lastUsedMap;
+	private static CallbackContext resourceCallbackContext;
+	private static LowLatencySpatializer spatializer;
+	// one thread, so per frame updates are applied in the order they were sent
+	private static final ExecutorService spatialExecutor = Executors.newSingleThreadExecutor();
+	private static ConcurrentHashMap<String, String> pathMap;
+	private static final Object mixerLock = new Object();
+	private static boolean mixerPaused = false;
+	private static boolean focusPaused = false;
+	private static boolean lifecyclePaused = false;
+	private static boolean hasAudioFocus = false;
+
+	private ComponentCallbacks2 memoryCallbacks;
+	private AudioManager.OnAudioFocusChangeListener focusListener;
+
+	/**
+	 * A SoundPool stream of a sample. SoundPool does not report when a
+	 * stream ends, so one-shot streams are dropped once they are older than
+	 * any sample can play.
+	 */
+	private static class SampleStream {
+		final int streamID;
+		final boolean looping;
+		long startedAt;
+
+		SampleStream(int streamID, boolean looping, long startedAt) {
+			this.streamID = streamID;
+			this.looping = looping;
+			this.startedAt = startedAt;
+		}
+	}
+
+	@Override
+	public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+		super.initialize(cordova, webView);
+
+		memoryCallbacks = new ComponentCallbacks2() {
+			@Override
+			public void onTrimMemory(int level) {
+				trimMemory(level);
+			}
+
+			@Override
+			public void onLowMemory() {
+				trimMemory(TRIM_MEMORY_COMPLETE);
+			}
+
+			@Override
+			public void onConfigurationChanged(Configuration newConfig) {
+			}
+		};
+		cordova.getActivity().registerComponentCallbacks(memoryCallbacks);
+
+		focusListener = new AudioManager.OnAudioFocusChangeListener() {
+			@Override
+			public void onAudioFocusChange(int focusChange) {
+				Log.d(LOGTAG, "audio focus " + focusChange);
+				synchronized (mixerLock) {
+					if (focusChange == AudioManager.AUDIOFOCUS_GAIN) {
+						hasAudioFocus = true;
+						focusPaused = false;
+					} else if (focusChange == AudioManager.AUDIOFOCUS_LOSS) {
+						hasAudioFocus = false;
+						focusPaused = true;
+					} else if (focusChange == AudioManager.AUDIOFOCUS_LOSS_TRANSIENT) {
+						focusPaused = true;
+					}
+					updateMixer();
+				}
+			}
+		};
+	}
+
+	@Override
+	public void onPause(boolean multitasking) {
+		Log.d(LOGTAG, "onPause");
+		synchronized (mixerLock) {
+			lifecyclePaused = true;
+			updateMixer();
+			abandonAudioFocus();
+		}
+	}
+
+	@Override
+	public void onResume(boolean multitasking) {
+		Log.d(LOGTAG, "onResume");
+		synchronized (mixerLock) {
+			lifecyclePaused = false;
+			// sounds paused by a lost focus stay paused until the next play regains it
+			if (mixerPaused && !focusPaused) {
+				requestAudioFocus();
+			}
+			updateMixer();
+		}
+	}
+
+	@Override
+	public void onReset() {
+		Log.d(LOGTAG, "onReset");
+		releaseAll();
+	}
+
+	@Override
+	public void onDestroy() {
+		Log.d(LOGTAG, "onDestroy");
+		releaseAll();
+		// the pool and the loader outlive this instance as statics; drop them
+		// so a recreated activity builds its own in initSoundPool
+		if (soundPool != null) {
+			soundPool.release();
+			soundPool = null;
+		}
+		assetLoader = null;
+		if (memoryCallbacks != null) {
+			cordova.getActivity().unregisterComponentCallbacks(memoryCallbacks);
+			memoryCallbacks = null;
+		}
+	}
+
+	private void requestAudioFocus() {
+		synchronized (mixerLock) {
+			// no focus is taken while in the background
+			if (hasAudioFocus || lifecyclePaused || focusListener == null) return;
+
+			AudioManager am = (AudioManager) cordova.getActivity().getSystemService(Context.AUDIO_SERVICE);
+			hasAudioFocus = am.requestAudioFocus(focusListener, AudioManager.STREAM_MUSIC,
+					AudioManager.AUDIOFOCUS_GAIN) == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+
+			// a granted request gets no AUDIOFOCUS_GAIN callback
+			if (hasAudioFocus) {
+				focusPaused = false;
+				updateMixer();
+			}
+		}
+	}
+
+	private void abandonAudioFocus() {
+		synchronized (mixerLock) {
+			if (!hasAudioFocus || focusListener == null) return;
+
+			AudioManager am = (AudioManager) cordova.getActivity().getSystemService(Context.AUDIO_SERVICE);
+			am.abandonAudioFocus(focusListener);
+			hasAudioFocus = false;
+		}
+	}
+
+	/**
+	 * Pauses the mixer while it is in the background or has lost audio
+	 * focus, and resumes it once neither holds. Must hold mixerLock.
+	 */
+	private void updateMixer() {
+		if (soundPool == null) return;
+
+		boolean pause = lifecyclePaused || focusPaused;
+		if (pause && !mixerPaused) {
+			soundPool.autoPause();
+			for (LowLatencyAudioAsset asset : assetMap.values()) {
+				asset.pause();
+			}
+			mixerPaused = true;
+		} else if (!pause && mixerPaused) {
+			soundPool.autoResume();
+			for (LowLatencyAudioAsset asset : assetMap.values()) {
+				asset.resume();
+			}
+			// paused time does not count towards the age of a stream
+			long now = System.currentTimeMillis();
+			for (String audioID : streamMap.keySet()) {
+				if (hasLiveStreams(audioID, now)) {
+					touchStreams(audioID, now);
+				}
+			}
+			mixerPaused = false;
+		}
+	}
+
+	/**
+	 * Stops and unloads every sound and stops the loader thread. The
+	 * SoundPool, loader and maps are kept, only emptied, so plugin tasks
+	 * still queued on the thread pool find no sound rather than null.
+	 */
+	private void releaseAll() {
+		if (soundPool == null) return;
+
+		assetLoader.shutdown();
+
+		for (LowLatencyAudioAsset asset : assetMap.values()) {
+			try {
+				asset.unload();
+			} catch (IOException e) {
+				Log.d(LOGTAG, "release: " + e);
+			}
+		}
+		assetMap.clear();
+
+		for (String audioID : streamMap.keySet()) {
+			stopStreams(audioID);
+		}
+		streamMap.clear();
+
+		for (Integer assetIntID : soundMap.values()) {
+			soundPool.unload(assetIntID);
+		}
+		soundMap.clear();
+
+		synchronized (pendingSampleMap) {
+			pendingSampleMap.clear();
+		}
+		entryMap.clear();
+		lastUsedMap.clear();
+		spatializer.clear();
+		pathMap.clear();
+		resourceCallbackContext = null;
+		maxLoadLatency = DEFAULT_MAX_LOAD_LATENCY;
+
+		synchronized (mixerLock) {
+			mixerPaused = false;
+			focusPaused = false;
+			abandonAudioFocus();
+		}
+	}
+
+	/**
+	 * Unloads sounds that have not been loaded or played recently, the colder
+	 * the more severe the memory pressure. They are registered again with the
+	 * loader, so the next play loads them lazily. The freed ids are sent to
+	 * the resource listener.
+	 */
+	private void trimMemory(int level) {
+		if (soundPool == null) return;
+
+		long maxAge;
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			maxAge = 0;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			maxAge = COLD_AGE_RUNNING_LOW;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			// only means the app left the screen; keep everything to resume quickly
+			return;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			maxAge = COLD_AGE_CRITICAL;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			maxAge = COLD_AGE_RUNNING_LOW;
+		} else {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		JSONArray freed = new JSONArray();
+
+		ArrayList<String> audioIDs = new ArrayList<String>(assetMap.keySet());
+		audioIDs.addAll(soundMap.keySet());
+		for (String audioID : audioIDs) {
+			// a sound still playing counts as used until it ends
+			LowLatencyAudioAsset asset = assetMap.get(audioID);
+			if ((asset != null && asset.isPlaying()) || hasLiveStreams(audioID, now)) {
+				lastUsedMap.put(audioID, now);
+				continue;
+			}
+
+			Long lastUsed = lastUsedMap.get(audioID);
+			if (lastUsed != null && now - lastUsed < maxAge) continue;
+
+			LowLatencyAssetLoader.Entry entry = entryMap.get(audioID);
+			try {
+				JSONArray args = new JSONArray();
+				args.put(audioID);
+				executeStop(args);
+				releaseSound(audioID);
+				lastUsedMap.remove(audioID);
+			} catch (Exception e) {
+				Log.d(LOGTAG, "trim: " + e);
+				continue;
+			}
+
+			if (entry != null) {
+				assetLoader.registerLazy(entry);
+			}
+			freed.put(audioID);
+		}
+
+		Log.d(LOGTAG, "trimMemory " + level + " - freed " + freed.length() + " sounds");
+		if (resourceCallbackContext != null && freed.length() > 0) {
+			try {
+				JSONObject report = new JSONObject();
+				report.put("level", level);
+				report.put("freed", freed);
+				PluginResult result = new PluginResult(Status.OK, report);
+				result.setKeepCallback(true);
+				resourceCallbackContext.sendPluginResult(result);
+			} catch (JSONException e) {
+				Log.d(LOGTAG, "trim report: " + e);
+			}
+		}
+	}
 
 	private PluginResult executePreloadFX(JSONArray data) {
 		String audioID;
 		try {
 			audioID = data.getString(0);
+			// an explicit preload takes over a pending manifest entry
+			assetLoader.cancel(audioID);
 			if (!soundMap.containsKey(audioID)) {
 				String assetPath = data.getString(1);
 				String fullPath = "www/".concat(assetPath);
@@ -79,8 +408,14 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 				Context ctx = cordova.getActivity().getApplicationContext();
 				AssetManager am = ctx.getResources().getAssets();
 				AssetFileDescriptor afd = am.openFd(fullPath);
-				int assetIntID = soundPool.load(afd, 1);
-				soundMap.put(audioID, assetIntID);
+				synchronized (pendingSampleMap) {
+					int assetIntID = soundPool.load(afd, 1);
+					soundMap.put(audioID, assetIntID);
+					pendingSampleMap.put(assetIntID, audioID);
+				}
+				pathMap.put(audioID, assetPath);
+				entryMap.put(audioID, new LowLatencyAssetLoader.Entry(audioID, assetPath, null, 0, true, 1.0f, 0, 0));
+				lastUsedMap.put(audioID, System.currentTimeMillis());
 			} else {
 				return new PluginResult(Status.ERROR, ERROR_AUDIOID_EXISTS);
 			}
@@ -97,6 +432,7 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 		String audioID;
 		try {
 			audioID = data.getString(0);
+			assetLoader.cancel(audioID);
 			if (!assetMap.containsKey(audioID)) {
 				String assetPath = data.getString(1);
 				Log.d(LOGTAG, "preloadAudio - " + audioID + ": " + assetPath);
@@ -115,17 +451,9 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 					voices = data.getInt(3);
 				}
 
-				String fullPath;
-				LowLatencyAudioAsset asset;
-				if (assetPath.startsWith("http"))
-				{
-					fullPath = this.downloadFromUrl(assetPath, audioID);
-					asset = new LowLatencyAudioAsset(fullPath, voices, (float)volume);
-				} else {
-					asset = new LowLatencyAudioAsset(assetPath, voices, (float)volume);
-				}
-
-				assetMap.put(audioID, asset);
+				assetMap.put(audioID, createAudioAsset(audioID, assetPath, (float)volume, voices));
+				entryMap.put(audioID, new LowLatencyAssetLoader.Entry(audioID, assetPath, null, 0, false, (float)volume, voices, 0));
+				lastUsedMap.put(audioID, System.currentTimeMillis());
 
 				return new PluginResult(Status.OK);
 			} else {
@@ -138,6 +466,107 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 		}
 	}
 
+	private LowLatencyAudioAsset createAudioAsset(String audioID, String assetPath, float volume, int voices) throws IOException {
+		if (assetPath.startsWith("http"))
+		{
+			String fullPath = this.downloadFromUrl(assetPath, audioID);
+			if (fullPath == null)
+				throw new IOException("Download failed: " + assetPath);
+			pathMap.put(audioID, fullPath);
+			return new LowLatencyAudioAsset(fullPath, voices, volume);
+		} else {
+			pathMap.put(audioID, assetPath);
+			return new LowLatencyAudioAsset(assetPath, voices, volume);
+		}
+	}
+
+	private PluginResult executeRegisterAssets(JSONArray data) {
+		try {
+			JSONArray manifest = data.getJSONArray(0);
+			if (data.length() > 1 && !data.isNull(1)) {
+				maxLoadLatency = data.getLong(1);
+			}
+
+			int registered = 0;
+			for (int x = 0; x < manifest.length(); x++) {
+				JSONObject item = manifest.getJSONObject(x);
+				String audioID = item.getString("id");
+				if (soundMap.containsKey(audioID) || assetMap.containsKey(audioID)) {
+					Log.d(LOGTAG, "registerAssets - skipping loaded " + audioID);
+					continue;
+				}
+
+				boolean fx = item.optBoolean("fx", false);
+				String assetPath = item.getString("path");
+				if (assetLoader.register(audioID,
+						assetPath,
+						item.optString("group", null),
+						item.optInt("priority", 0),
+						fx,
+						(float) item.optDouble("volume", 1.0),
+						item.optInt("voices", 1))) {
+					// lets renderOffline use a sound that is still queued
+					if (!assetPath.startsWith("http")) {
+						pathMap.put(audioID, assetPath);
+						entryMap.put(audioID, new LowLatencyAssetLoader.Entry(audioID, assetPath, null, 0, fx,
+								(float) item.optDouble("volume", 1.0), item.optInt("voices", 1), 0));
+					}
+					registered++;
+				}
+			}
+			Log.d(LOGTAG, "registerAssets - " + registered + " of " + manifest.length() + " queued");
+			assetLoader.start();
+
+			return new PluginResult(Status.OK, registered);
+		} catch (JSONException e) {
+			return new PluginResult(Status.ERROR, e.toString());
+		}
+	}
+
+	private PluginResult executePrefetchGroup(JSONArray data) {
+		try {
+			String group = data.getString(0);
+			return new PluginResult(Status.OK, assetLoader.promoteGroup(group));
+		} catch (JSONException e) {
+			return new PluginResult(Status.ERROR, e.toString());
+		}
+	}
+
+	@Override
+	public boolean loadEntry(LowLatencyAssetLoader.Entry entry) {
+		try {
+			if (entry.fx) {
+				Context ctx = cordova.getActivity().getApplicationContext();
+				AssetFileDescriptor afd = ctx.getResources().getAssets().openFd("www/".concat(entry.assetPath));
+				synchronized (pendingSampleMap) {
+					if (!assetLoader.isPending(entry.audioID))
+						return true;
+					int assetIntID = soundPool.load(afd, 1);
+					soundMap.put(entry.audioID, assetIntID);
+					pendingSampleMap.put(assetIntID, entry.audioID);
+				}
+				entryMap.put(entry.audioID, entry);
+				lastUsedMap.put(entry.audioID, System.currentTimeMillis());
+				// marked loaded from onLoadComplete once the sample is decoded
+			} else {
+				LowLatencyAudioAsset asset = createAudioAsset(entry.audioID, entry.assetPath, entry.volume, entry.voices);
+				if (!assetLoader.isPending(entry.audioID)) {
+					// unloaded while we were preparing it
+					asset.unload();
+					return true;
+				}
+				assetMap.put(entry.audioID, asset);
+				entryMap.put(entry.audioID, entry);
+				lastUsedMap.put(entry.audioID, System.currentTimeMillis());
+				assetLoader.markLoaded(entry.audioID);
+			}
+			return true;
+		} catch (IOException e) {
+			Log.d(LOGTAG, "prefetch - " + entry.audioID + ": " + e);
+			return false;
+		}
+	}
+
 	public String downloadFromUrl(String downloadUrl, String fileName) {
 		try {
 			Context ctx = cordova.getActivity().getApplicationContext();
@@ -187,39 +616,60 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 			audioID = data.getString(0);
 			//Log.d( LOGTAG, "play - " + audioID );
 
-			if (assetMap.containsKey(audioID)) {
-				LowLatencyAudioAsset asset = assetMap.get(audioID);
-				if (LOOP.equals(action)) {
-					asset.loop();
-				} else if (FADE_IN.equals(action)) {
-					float fadeDuration = (float) data.getDouble(1);
-					float increment = (float) data.getDouble(2);
-					asset.fadeIn(fadeDuration, increment);
-				} else if (FADE_OUT.equals(action)) {
-					float fadeDuration = (float) data.getDouble(1);
-					float increment = (float) data.getDouble(2);
-					asset.fadeOut(fadeDuration, increment);
-				} else {
-					asset.setComplectionHandler(this);
-					asset.play();
+			if (assetLoader.isPending(audioID)) {
+				Log.d(LOGTAG, "play - waiting for " + audioID);
+				if (!assetLoader.awaitLoaded(audioID, maxLoadLatency)) {
+					return new PluginResult(Status.ERROR, ERROR_LOAD_TIMEOUT);
 				}
-			} else if (soundMap.containsKey(audioID)) {
-				int loops = 0;
-				if (LOOP.equals(action)) {
-					loops = -1;
+			}
+
+			LowLatencyAudioAsset asset = assetMap.get(audioID);
+			Integer assetIntID = soundMap.get(audioID);
+			if (asset == null && assetIntID == null) {
+				return new PluginResult(Status.ERROR, ERROR_NO_AUDIOID);
+			}
+
+			float left = 1;
+			float right = 1;
+			synchronized (spatializer) {
+				int slot = spatializer.indexOf(audioID);
+				if (slot >= 0) {
+					left = spatializer.getGainLeft(slot);
+					right = spatializer.getGainRight(slot);
 				}
+			}
 
-				ArrayList<Integer> streams = streamMap.get(audioID);
-				if (streams == null)
-					streams = new ArrayList<Integer>();
+			// starting the sound under the lock keeps a pause from slipping in between
+			synchronized (mixerLock) {
+				requestAudioFocus();
+				if (lifecyclePaused || focusPaused || !hasAudioFocus) {
+					return new PluginResult(Status.ERROR, ERROR_AUDIO_PAUSED);
+				}
+				long now = System.currentTimeMillis();
+				lastUsedMap.put(audioID, now);
 
-				int assetIntID = soundMap.get(audioID);
-				int streamID = soundPool
-						.play(assetIntID, 1, 1, 1, loops, 1);
-				streams.add(streamID);
-				streamMap.put(audioID, streams);
-			} else {
-				return new PluginResult(Status.ERROR, ERROR_NO_AUDIOID);
+				if (asset != null) {
+					asset.setSpatialGain(left, right);
+					if (LOOP.equals(action)) {
+						asset.loop();
+					} else if (FADE_IN.equals(action)) {
+						float fadeDuration = (float) data.getDouble(1);
+						float increment = (float) data.getDouble(2);
+						asset.fadeIn(fadeDuration, increment);
+					} else if (FADE_OUT.equals(action)) {
+						float fadeDuration = (float) data.getDouble(1);
+						float increment = (float) data.getDouble(2);
+						asset.fadeOut(fadeDuration, increment);
+					} else {
+						asset.setComplectionHandler(this);
+						asset.play();
+					}
+				} else {
+					boolean looping = LOOP.equals(action);
+					int streamID = soundPool
+							.play(assetIntID, left, right, 1, looping ? -1 : 0, 1);
+					addStream(audioID, new SampleStream(streamID, looping, now));
+				}
 			}
 		} catch (JSONException e) {
 			return new PluginResult(Status.ERROR, e.toString());
@@ -242,12 +692,7 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 				LowLatencyAudioAsset asset = assetMap.get(audioID);
 				asset.stop();
 			} else if (soundMap.containsKey(audioID)) {
-				ArrayList<Integer> streams = streamMap.get(audioID);
-				if (streams != null) {
-					for (int x = 0; x < streams.size(); x++)
-						soundPool.stop(streams.get(x));
-				}
-				streamMap.remove(audioID);
+				stopStreams(audioID);
 			} else {
 				return new PluginResult(Status.ERROR, ERROR_NO_AUDIOID);
 			}
@@ -265,17 +710,13 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 		try {
 			audioID = data.getString(0);
 			Log.d( LOGTAG, "unload - " + audioID );
+			entryMap.remove(audioID);
+			lastUsedMap.remove(audioID);
+			pathMap.remove(audioID);
+			spatializer.remove(audioID);
 
-			if (assetMap.containsKey(audioID)) {
-				LowLatencyAudioAsset asset = assetMap.get(audioID);
-				asset.unload();
-				assetMap.remove(audioID);
-			} else if (soundMap.containsKey(audioID)) {
-				// streams unloaded and stopped above
-				int assetIntID = soundMap.get(audioID);
-				soundMap.remove(audioID);
-				soundPool.unload(assetIntID);
-			} else {
+			// a registered id may not be loaded yet
+			if (!releaseSound(audioID) && !assetLoader.cancel(audioID)) {
 				return new PluginResult(Status.ERROR, ERROR_NO_AUDIOID);
 			}
 		} catch (JSONException e) {
@@ -287,6 +728,398 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 		return new PluginResult(Status.OK);
 	}
 
+	/**
+	 * Frees the voices or sample of a loaded id but keeps what is known
+	 * about it (path, position), so it can be loaded again.
+	 *
+	 * @return false if the id was not loaded
+	 */
+	private boolean releaseSound(String audioID) throws IOException {
+		if (assetMap.containsKey(audioID)) {
+			LowLatencyAudioAsset asset = assetMap.get(audioID);
+			asset.unload();
+			assetMap.remove(audioID);
+		} else if (soundMap.containsKey(audioID)) {
+			// streams unloaded and stopped above
+			int assetIntID = soundMap.get(audioID);
+			soundMap.remove(audioID);
+			streamMap.remove(audioID);
+			soundPool.unload(assetIntID);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private void addStream(String audioID, SampleStream stream) {
+		ArrayList<SampleStream> streams = streamMap.get(audioID);
+		if (streams == null) {
+			streams = new ArrayList<SampleStream>();
+			ArrayList<SampleStream> existing = streamMap.putIfAbsent(audioID, streams);
+			if (existing != null)
+				streams = existing;
+		}
+		synchronized (streams) {
+			pruneStreams(streams, stream.startedAt);
+			// past this many the pool has already stolen the oldest stream
+			while (streams.size() >= DEFAULT_POLYPHONY_VOICES)
+				streams.remove(0);
+			streams.add(stream);
+		}
+	}
+
+	private void stopStreams(String audioID) {
+		// cleared rather than removed, so a play adding to the list is not lost
+		ArrayList<SampleStream> streams = streamMap.get(audioID);
+		if (streams == null) return;
+
+		synchronized (streams) {
+			for (int x = 0; x < streams.size(); x++)
+				soundPool.stop(streams.get(x).streamID);
+			streams.clear();
+		}
+	}
+
+	/**
+	 * @return true if the id has a looping stream or a one-shot stream that
+	 * may still be playing
+	 */
+	private boolean hasLiveStreams(String audioID, long now) {
+		ArrayList<SampleStream> streams = streamMap.get(audioID);
+		if (streams == null) return false;
+
+		synchronized (streams) {
+			pruneStreams(streams, now);
+			return !streams.isEmpty();
+		}
+	}
+
+	/**
+	 * Marks the streams of an id as active now, so neither they nor the
+	 * sample are considered finished or cold.
+	 */
+	private void touchStreams(String audioID, long now) {
+		ArrayList<SampleStream> streams = streamMap.get(audioID);
+		if (streams == null) return;
+
+		synchronized (streams) {
+			for (int x = 0; x < streams.size(); x++)
+				streams.get(x).startedAt = now;
+		}
+		lastUsedMap.put(audioID, now);
+	}
+
+	private static void pruneStreams(ArrayList<SampleStream> streams, long now) {
+		for (int x = streams.size() - 1; x >= 0; x--) {
+			SampleStream stream = streams.get(x);
+			if (!stream.looping && now - stream.startedAt >= ONE_SHOT_MAX_AGE)
+				streams.remove(x);
+		}
+	}
+
+	private PluginResult executeSetListener(JSONArray data) {
+		try {
+			JSONArray position = data.getJSONArray(0);
+			JSONArray orientation = data.getJSONArray(1);
+			spatializer.setListener(
+					(float) position.getDouble(0), (float) position.getDouble(1), (float) position.getDouble(2),
+					(float) orientation.getDouble(0), (float) orientation.getDouble(1), (float) orientation.getDouble(2),
+					(float) orientation.getDouble(3), (float) orientation.getDouble(4), (float) orientation.getDouble(5));
+		} catch (JSONException e) {
+			return new PluginResult(Status.ERROR, e.toString());
+		}
+
+		applySpatialGains(null);
+		return new PluginResult(Status.OK);
+	}
+
+	private PluginResult executeSetDistanceModel(JSONArray data) {
+		try {
+			int model = LowLatencySpatializer.parseDistanceModel(data.getString(0));
+			spatializer.setDistanceModel(model,
+					(float) data.getDouble(1), (float) data.getDouble(2), (float) data.getDouble(3));
+		} catch (JSONException e) {
+			return new PluginResult(Status.ERROR, e.toString());
+		} catch (IllegalArgumentException e) {
+			return new PluginResult(Status.ERROR, e.getMessage());
+		}
+
+		applySpatialGains(null);
+		return new PluginResult(Status.OK);
+	}
+
+	/**
+	 * Takes either a single id and position, or a flat array of
+	 * [id, x, y, z, id, x, y, z, ...] so that many emitters cost one call.
+	 */
+	private PluginResult executeSetPositions(JSONArray data) {
+		if (data.length() % 4 != 0) {
+			return new PluginResult(Status.ERROR, "Expected [id, x, y, z] groups, got " + data.length() + " values.");
+		}
+
+		// validate the whole batch before moving anything
+		int count = data.length() / 4;
+		String[] audioIDs = new String[count];
+		float[] positions = new float[count * 3];
+		try {
+			readPositions(data, audioIDs, positions);
+		} catch (JSONException e) {
+			return new PluginResult(Status.ERROR, e.toString());
+		}
+		for (int x = 0; x < count; x++) {
+			String audioID = audioIDs[x];
+			if (!assetMap.containsKey(audioID) && !soundMap.containsKey(audioID) && !assetLoader.isPending(audioID)) {
+				return new PluginResult(Status.ERROR, ERROR_NO_AUDIOID);
+			}
+		}
+
+		synchronized (spatializer) {
+			for (int x = 0; x < count; x++) {
+				spatializer.setPosition(audioIDs[x], positions[x * 3], positions[x * 3 + 1], positions[x * 3 + 2]);
+			}
+			// the listener did not move, so only the batch changed gains
+			applySpatialGains(audioIDs);
+		}
+		return new PluginResult(Status.OK);
+	}
+
+	private static void readPositions(JSONArray data, String[] audioIDs, float[] positions) throws JSONException {
+		for (int x = 0; x < audioIDs.length; x++) {
+			audioIDs[x] = data.getString(x * 4);
+			positions[x * 3] = (float) data.getDouble(x * 4 + 1);
+			positions[x * 3 + 1] = (float) data.getDouble(x * 4 + 2);
+			positions[x * 3 + 2] = (float) data.getDouble(x * 4 + 3);
+		}
+	}
+
+	private PluginResult executeBenchmarkSpatial(JSONArray data) {
+		try {
+			int emitters = data.getInt(0);
+			int frames = data.length() > 1 ? data.getInt(1) : 600;
+
+			JSONObject report = new JSONObject();
+			report.put("emitters", emitters);
+			report.put("frames", frames);
+			String[] models = { "inverse", "linear", "exponential" };
+			for (String name : models) {
+				int model = LowLatencySpatializer.parseDistanceModel(name);
+				long frameNanos = benchmarkSetPositions(emitters, frames, model);
+				JSONObject result = new JSONObject();
+				result.put("nsPerFrame", frameNanos);
+				result.put("nsPerEmitter", emitters > 0 ? frameNanos / (double) emitters : 0);
+				result.put("emittersPerFrame", LowLatencySpatializer.emittersPerFrame(emitters, frameNanos));
+				result.put("mathNsPerFrame", LowLatencySpatializer.benchmark(emitters, frames, model));
+				report.put(name, result);
+			}
+			Log.d(LOGTAG, "benchmarkSpatial - " + report);
+			return new PluginResult(Status.OK, report);
+		} catch (JSONException e) {
+			return new PluginResult(Status.ERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Times what one setPositions call per frame costs: parsing the batch
+	 * from the JSON the bridge delivers, moving and recomputing the
+	 * emitters, and one SoundPool setVolume per emitter. It runs on a
+	 * spatializer of its own, so no playing sound is affected.
+	 *
+	 * @return the average time of one frame in nanoseconds
+	 */
+	private long benchmarkSetPositions(int emitters, int frames, int model) throws JSONException {
+		LowLatencySpatializer bench = new LowLatencySpatializer();
+		bench.setDistanceModel(model, 1, 100, 1);
+
+		Random random = new Random(emitters);
+		JSONArray batch = new JSONArray();
+		for (int x = 0; x < emitters; x++) {
+			batch.put("emitter" + x);
+			batch.put(random.nextFloat() * 200 - 100);
+			batch.put(random.nextFloat() * 200 - 100);
+			batch.put(random.nextFloat() * 200 - 100);
+		}
+		String json = batch.toString();
+
+		String[] audioIDs = new String[emitters];
+		float[] positions = new float[emitters * 3];
+		long total = 0;
+		// the first frame only warms up
+		for (int frame = -1; frame < frames; frame++) {
+			long start = System.nanoTime();
+			readPositions(new JSONArray(json), audioIDs, positions);
+			synchronized (bench) {
+				for (int x = 0; x < emitters; x++)
+					bench.setPosition(audioIDs[x], positions[x * 3], positions[x * 3 + 1], positions[x * 3 + 2]);
+				bench.setListener(frame * 0.01f, 0, 0, 0, 0, -1, 0, 1, 0);
+				bench.update();
+				// stream 0 is never valid, but the call still crosses into the pool
+				for (int x = 0; x < emitters; x++) {
+					int slot = bench.indexOf(audioIDs[x]);
+					soundPool.setVolume(0, bench.getGainLeft(slot), bench.getGainRight(slot));
+				}
+			}
+			if (frame >= 0)
+				total += System.nanoTime() - start;
+		}
+		return total / Math.max(frames, 1);
+	}
+
+	/**
+	 * Recomputes the emitters and pushes the gains to the voices and active
+	 * SoundPool streams of the given ids, or of every emitter if null. Sounds
+	 * played later pick the gains up in executeAudioPlay.
+	 */
+	private void applySpatialGains(String[] audioIDs) {
+		synchronized (spatializer) {
+			spatializer.update();
+			if (audioIDs == null) {
+				for (int slot = 0; slot < spatializer.size(); slot++)
+					pushSpatialGains(spatializer.getID(slot), slot);
+			} else {
+				for (int x = 0; x < audioIDs.length; x++)
+					pushSpatialGains(audioIDs[x], spatializer.indexOf(audioIDs[x]));
+			}
+		}
+	}
+
+	private void pushSpatialGains(String audioID, int slot) {
+		float left = spatializer.getGainLeft(slot);
+		float right = spatializer.getGainRight(slot);
+
+		LowLatencyAudioAsset asset = assetMap.get(audioID);
+		if (asset != null) {
+			asset.setSpatialGain(left, right);
+			return;
+		}
+
+		ArrayList<SampleStream> streams = streamMap.get(audioID);
+		if (streams != null) {
+			synchronized (streams) {
+				for (int x = 0; x < streams.size(); x++)
+					soundPool.setVolume(streams.get(x).streamID, left, right);
+			}
+		}
+	}
+
+	/**
+	 * Mixes a sequence of [{id, time, volume}] events into a WAV file on the
+	 * calling thread, decoding each referenced sound once and only as far as
+	 * its earliest event can be heard. The preload volume and current spatial
+	 * gains of each id are applied on top of the event volume.
+	 */
+	private PluginResult executeRenderOffline(JSONArray data) {
+		try {
+			JSONArray sequence = data.getJSONArray(0);
+			double durationMs = data.getDouble(1);
+			String outPath = data.getString(2);
+			long totalFrames = LowLatencyOfflineMixer.msToFrames(durationMs);
+			if (totalFrames <= 0) {
+				return new PluginResult(Status.ERROR, "durationMs must be greater than 0.");
+			}
+			if (outPath.startsWith("file://")) {
+				outPath = outPath.substring("file://".length());
+			}
+
+			Context ctx = cordova.getActivity().getApplicationContext();
+			File outFile = new File(outPath);
+			if (!outFile.isAbsolute()) {
+				outFile = new File(ctx.getFilesDir(), outPath);
+			}
+
+			long startTime = System.currentTimeMillis();
+
+			// how much of each sound can be heard before the end
+			HashMap<String, Long> framesNeeded = new HashMap<String, Long>();
+			for (int x = 0; x < sequence.length(); x++) {
+				JSONObject event = sequence.getJSONObject(x);
+				String audioID = event.getString("id");
+				if (pathMap.get(audioID) == null || entryMap.get(audioID) == null) {
+					return new PluginResult(Status.ERROR, ERROR_NO_AUDIOID);
+				}
+
+				long startFrame = Math.max(LowLatencyOfflineMixer.msToFrames(event.getDouble("time")), 0);
+				if (startFrame >= totalFrames) continue;
+
+				Long needed = framesNeeded.get(audioID);
+				if (needed == null || needed < totalFrames - startFrame) {
+					framesNeeded.put(audioID, totalFrames - startFrame);
+				}
+			}
+
+			HashMap<String, short[]> decoded = new HashMap<String, short[]>();
+			LowLatencyOfflineMixer mixer = new LowLatencyOfflineMixer();
+
+			for (int x = 0; x < sequence.length(); x++) {
+				JSONObject event = sequence.getJSONObject(x);
+				String audioID = event.getString("id");
+				long startFrame = Math.max(LowLatencyOfflineMixer.msToFrames(event.getDouble("time")), 0);
+				if (startFrame >= totalFrames) continue;
+
+				String assetPath = pathMap.get(audioID);
+				LowLatencyAssetLoader.Entry entry = entryMap.get(audioID);
+				if (assetPath == null || entry == null) {
+					return new PluginResult(Status.ERROR, ERROR_NO_AUDIOID);
+				}
+
+				short[] pcm = decoded.get(audioID);
+				if (pcm == null) {
+					long maxFrames = framesNeeded.get(audioID);
+					// open the file the same way the live player does
+					if (entry.fx) {
+						AssetFileDescriptor afd = ctx.getResources().getAssets().openFd("www/".concat(assetPath));
+						try {
+							pcm = LowLatencyAudioDecoder.decode(afd, maxFrames);
+						} finally {
+							afd.close();
+						}
+					} else {
+						pcm = LowLatencyAudioDecoder.decode(assetPath, maxFrames);
+					}
+					decoded.put(audioID, pcm);
+				}
+
+				// fx samples play at full volume live, see executeAudioPlay
+				float volume = (entry.fx ? 1.0f : entry.volume) * (float) event.optDouble("volume", 1.0);
+				float left = volume;
+				float right = volume;
+				synchronized (spatializer) {
+					int slot = spatializer.indexOf(audioID);
+					if (slot >= 0) {
+						left *= spatializer.getGainLeft(slot);
+						right *= spatializer.getGainRight(slot);
+					}
+				}
+				mixer.addVoice(pcm, startFrame, left, right);
+			}
+			long decodeTime = System.currentTimeMillis();
+
+			long frames = mixer.render(outFile, totalFrames);
+			long endTime = System.currentTimeMillis();
+
+			long renderMs = Math.max(endTime - startTime, 1);
+			JSONObject report = new JSONObject();
+			report.put("path", outFile.getAbsolutePath());
+			report.put("frames", frames);
+			report.put("durationMs", durationMs);
+			report.put("decodeMs", decodeTime - startTime);
+			report.put("mixMs", endTime - decodeTime);
+			report.put("speedup", durationMs / renderMs);
+			Log.d(LOGTAG, "renderOffline - " + report);
+
+			return new PluginResult(Status.OK, report);
+		} catch (JSONException e) {
+			return new PluginResult(Status.ERROR, e.toString());
+		} catch (IOException e) {
+			return new PluginResult(Status.ERROR, e.toString());
+		} catch (RuntimeException e) {
+			// MediaCodec reports unsupported formats as IllegalStateException
+			return new PluginResult(Status.ERROR, e.toString());
+		} catch (OutOfMemoryError e) {
+			// the decoded sounds are garbage once we return
+			return new PluginResult(Status.ERROR, e.toString());
+		}
+	}
+
 	@Override
 	public boolean execute(final String action, final JSONArray data, final CallbackContext callbackContext) {
 		Log.d(LOGTAG, "Plugin Called: " + action);
@@ -323,6 +1156,45 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 		            }
 		        });
 
+			} else if (REGISTER_ASSETS.equals(action)) {
+				result = executeRegisterAssets(data);
+
+			} else if (PREFETCH_GROUP.equals(action)) {
+				result = executePrefetchGroup(data);
+
+			} else if (SET_RESOURCE_LISTENER.equals(action)) {
+				resourceCallbackContext = callbackContext;
+				result = new PluginResult(Status.NO_RESULT);
+				result.setKeepCallback(true);
+
+			} else if (SET_LISTENER.equals(action) || SET_DISTANCE_MODEL.equals(action)
+					|| SET_POSITION.equals(action) || SET_POSITIONS.equals(action)) {
+				spatialExecutor.execute(new Runnable() {
+		            public void run() {
+		            	if (SET_LISTENER.equals(action)) {
+		            		callbackContext.sendPluginResult( executeSetListener(data) );
+		            	} else if (SET_DISTANCE_MODEL.equals(action)) {
+		            		callbackContext.sendPluginResult( executeSetDistanceModel(data) );
+		            	} else {
+		            		callbackContext.sendPluginResult( executeSetPositions(data) );
+		            	}
+		            }
+		        });
+
+			} else if (BENCHMARK_SPATIAL.equals(action)) {
+				cordova.getThreadPool().execute(new Runnable() {
+		            public void run() {
+		            	callbackContext.sendPluginResult( executeBenchmarkSpatial(data) );
+		            }
+		        });
+
+			} else if (RENDER_OFFLINE.equals(action)) {
+				cordova.getThreadPool().execute(new Runnable() {
+		            public void run() {
+		            	callbackContext.sendPluginResult( executeRenderOffline(data) );
+		            }
+		        });
+
 			} else if (UNLOAD.equals(action)) {
 				cordova.getThreadPool().execute(new Runnable() {
 		            public void run() {
@@ -343,21 +1215,64 @@ public class LowLatencyAudio extends CordovaPlugin implements LowLatencyCompleti
 	}
 
 	private void initSoundPool() {
-		if (soundPool == null) {
-			soundPool = new SoundPool(DEFAULT_POLYPHONY_VOICES,
-					AudioManager.STREAM_MUSIC, 1);
+		if (pendingSampleMap == null) {
+			pendingSampleMap = new HashMap<Integer, String>();
 		}
 
 		if (soundMap == null) {
-			soundMap = new HashMap<String, Integer>();
+			soundMap = new ConcurrentHashMap<String, Integer>();
 		}
 
 		if (streamMap == null) {
-			streamMap = new HashMap<String, ArrayList<Integer>>();
+			streamMap = new ConcurrentHashMap<String, ArrayList<SampleStream>>();
 		}
 
 		if (assetMap == null) {
-			assetMap = new HashMap<String, LowLatencyAudioAsset>();
+			assetMap = new ConcurrentHashMap<String, LowLatencyAudioAsset>();
+		}
+
+		if (assetLoader == null) {
+			assetLoader = new LowLatencyAssetLoader(this);
+		}
+
+		if (entryMap == null) {
+			entryMap = new ConcurrentHashMap<String, LowLatencyAssetLoader.Entry>();
+		}
+
+		if (lastUsedMap == null) {
+			lastUsedMap = new ConcurrentHashMap<String, Long>();
+		}
+
+		if (spatializer == null) {
+			spatializer = new LowLatencySpatializer();
+		}
+
+		if (pathMap == null) {
+			pathMap = new ConcurrentHashMap<String, String>();
+		}
+
+		// created last: the lifecycle callbacks take a SoundPool to mean the maps exist
+		if (soundPool == null) {
+			SoundPool pool = new SoundPool(DEFAULT_POLYPHONY_VOICES,
+					AudioManager.STREAM_MUSIC, 1);
+			pool.setOnLoadCompleteListener(new OnLoadCompleteListener() {
+				@Override
+				public void onLoadComplete(SoundPool pool, int sampleId, int status) {
+					String audioID;
+					synchronized (pendingSampleMap) {
+						audioID = pendingSampleMap.remove(sampleId);
+					}
+					if (audioID == null) return;
+
+					if (status == 0) {
+						assetLoader.markLoaded(audioID);
+					} else {
+						soundMap.remove(audioID);
+						assetLoader.markFailed(audioID);
+					}
+				}
+			});
+			soundPool = pool;
 		}
 	}
 
@@ -20,7 +20,11 @@ import android.content.res.AssetFileDescriptor;
 
 public class LowLatencyAudioAsset {
 
+	// voices are paused and resumed from the main thread while the plugin
+	// plays, stops and unloads them from the thread pool, so every method
+	// that touches them is synchronized
 	private ArrayList<PolyphonicVoice> voices;
+	private ArrayList<PolyphonicVoice> pausedVoices = new ArrayList<PolyphonicVoice>();
 	private int playIndex = 0;
 	private LowLatencyCompletionHandler savedHandler;
 
@@ -50,7 +54,7 @@ public class LowLatencyAudioAsset {
 		}
 	}
 
-	public void play() throws IOException
+	public synchronized void play() throws IOException
 	{
 		PolyphonicVoice voice = voices.get(playIndex);
 		voice.setComplectionHandler(savedHandler);
@@ -59,8 +63,9 @@ public class LowLatencyAudioAsset {
 		playIndex = playIndex % voices.size();
 	}
 
-	public void stop() throws IOException
+	public synchronized void stop() throws IOException
 	{
+		pausedVoices.clear();
 		for ( int x=0; x<voices.size(); x++)
 		{
 			PolyphonicVoice voice = voices.get(x);
@@ -68,7 +73,7 @@ public class LowLatencyAudioAsset {
 		}
 	}
 
-	public void loop() throws IOException
+	public synchronized void loop() throws IOException
 	{
 		PolyphonicVoice voice = voices.get(playIndex);
 		voice.loop();
@@ -76,7 +81,47 @@ public class LowLatencyAudioAsset {
 		playIndex = playIndex % voices.size();
 	}
 
-	public void unload() throws IOException
+	public synchronized void pause()
+	{
+		for ( int x=0; x<voices.size(); x++)
+		{
+			PolyphonicVoice voice = voices.get(x);
+			if ( voice.pause() )
+				pausedVoices.add( voice );
+		}
+	}
+
+	public synchronized void resume()
+	{
+		for ( int x=0; x<pausedVoices.size(); x++)
+		{
+			pausedVoices.get(x).resume();
+		}
+		pausedVoices.clear();
+	}
+
+	public synchronized boolean isPlaying()
+	{
+		if ( !pausedVoices.isEmpty() )
+			return true;
+
+		for ( int x=0; x<voices.size(); x++)
+		{
+			if ( voices.get(x).isPlaying() )
+				return true;
+		}
+		return false;
+	}
+
+	public synchronized void setSpatialGain(float left, float right)
+	{
+		for ( int x=0; x<voices.size(); x++)
+		{
+			voices.get(x).setSpatialGain(left, right);
+		}
+	}
+
+	public synchronized void unload() throws IOException
 	{
 		this.stop();
 		for ( int x=0; x<voices.size(); x++)
@@ -87,13 +132,13 @@ public class LowLatencyAudioAsset {
 		voices.removeAll(voices);
 	}
 
-	public void fadeIn(float fadeDuration, float increment) throws IOException
+	public synchronized void fadeIn(float fadeDuration, float increment) throws IOException
 	{
 		PolyphonicVoice voice = voices.get(playIndex);
 		voice.fadeIn(fadeDuration, increment);
 	}
 
-	public void fadeOut(float fadeDuration, float increment) throws IOException
+	public synchronized void fadeOut(float fadeDuration, float increment) throws IOException
 	{
 		PolyphonicVoice voice = voices.get(playIndex);
 		voice.fadeOut(fadeDuration, increment);
@@ -0,0 +1,166 @@
+/*
+THIS SOFTWARE IS PROVIDED BY ANDREW TRICE "AS IS" AND ANY EXPRESS OR
+IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+EVENT SHALL ANDREW TRICE OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.rjfun.cordova.plugin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+/**
+ * Decodes the start of an audio file to 16 bit stereo PCM at
+ * {@link LowLatencyOfflineMixer#SAMPLE_RATE} for offline rendering.
+ */
+public class LowLatencyAudioDecoder {
+
+	private static final long TIMEOUT_US = 10000;
+	// about five seconds without the codec taking input or giving output
+	private static final int MAX_IDLE_POLLS = 250;
+
+	/**
+	 * @param maxFrames the most output frames needed; decoding stops there
+	 */
+	public static short[] decode(AssetFileDescriptor afd, long maxFrames) throws IOException
+	{
+		MediaExtractor extractor = new MediaExtractor();
+		extractor.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+		return decode(extractor, maxFrames);
+	}
+
+	/**
+	 * @param maxFrames the most output frames needed; decoding stops there
+	 */
+	public static short[] decode(String filePath, long maxFrames) throws IOException
+	{
+		MediaExtractor extractor = new MediaExtractor();
+		extractor.setDataSource(filePath);
+		return decode(extractor, maxFrames);
+	}
+
+	private static short[] decode(MediaExtractor extractor, long maxFrames) throws IOException
+	{
+		MediaCodec codec = null;
+		boolean started = false;
+		try {
+			MediaFormat format = null;
+			String mime = null;
+			for (int x = 0; x < extractor.getTrackCount(); x++) {
+				MediaFormat trackFormat = extractor.getTrackFormat(x);
+				String trackMime = trackFormat.getString(MediaFormat.KEY_MIME);
+				if (trackMime != null && trackMime.startsWith("audio/")) {
+					extractor.selectTrack(x);
+					format = trackFormat;
+					mime = trackMime;
+					break;
+				}
+			}
+			if (format == null)
+				throw new IOException("No audio track found");
+
+			int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+			int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+			int limit = inputSamples(maxFrames, sampleRate, channels);
+
+			codec = MediaCodec.createDecoderByType(mime);
+			codec.configure(format, null, null, 0);
+			codec.start();
+			started = true;
+
+			MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+			short[] samples = new short[Math.min(sampleRate * channels, limit)];
+			int length = 0;
+			boolean inputDone = false;
+			boolean outputDone = false;
+			int idlePolls = 0;
+
+			while (!outputDone) {
+				boolean progress = false;
+				if (!inputDone) {
+					int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+					if (inputIndex >= 0) {
+						int size = extractor.readSampleData(codec.getInputBuffer(inputIndex), 0);
+						if (size < 0) {
+							codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+							inputDone = true;
+						} else {
+							codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+							extractor.advance();
+						}
+						progress = true;
+					}
+				}
+
+				int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+				if (outputIndex >= 0) {
+					ByteBuffer buffer = codec.getOutputBuffer(outputIndex);
+					buffer.position(info.offset);
+					buffer.limit(info.offset + info.size);
+					ShortBuffer pcm = buffer.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+
+					int count = Math.min(pcm.remaining(), limit - length);
+					if (length + count > samples.length) {
+						short[] grown = new short[Math.min(Math.max(samples.length * 2, length + count), limit)];
+						System.arraycopy(samples, 0, grown, 0, length);
+						samples = grown;
+					}
+					pcm.get(samples, length, count);
+					length += count;
+
+					codec.releaseOutputBuffer(outputIndex, false);
+					// the rest of the file is never heard
+					if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0 || length >= limit)
+						outputDone = true;
+					progress = true;
+				} else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+					MediaFormat outputFormat = codec.getOutputFormat();
+					sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+					channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+					limit = Math.max(inputSamples(maxFrames, sampleRate, channels), length);
+					progress = true;
+				}
+
+				if (progress) {
+					idlePolls = 0;
+				} else if (++idlePolls > MAX_IDLE_POLLS) {
+					throw new IOException("Decoder stopped responding");
+				}
+			}
+
+			return LowLatencyOfflineMixer.toStereo(samples, length, channels, sampleRate);
+		} finally {
+			if (codec != null) {
+				if (started)
+					codec.stop();
+				codec.release();
+			}
+			extractor.release();
+		}
+	}
+
+	/**
+	 * @return how many interleaved input samples resample to maxFrames, plus
+	 * the one frame interpolation reads ahead
+	 */
+	private static int inputSamples(long maxFrames, int sampleRate, int channels)
+	{
+		long frames = (maxFrames * sampleRate + LowLatencyOfflineMixer.SAMPLE_RATE - 1) / LowLatencyOfflineMixer.SAMPLE_RATE + 1;
+		return (int) Math.min(frames * channels, Integer.MAX_VALUE);
+	}
+}
@@ -0,0 +1,218 @@
+/*
+THIS SOFTWARE IS PROVIDED BY ANDREW TRICE "AS IS" AND ANY EXPRESS OR
+IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+EVENT SHALL ANDREW TRICE OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.rjfun.cordova.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Mixes scheduled 16 bit stereo clips into a WAV file without an audio
+ * device. The output is written in fixed size chunks, so memory use does not
+ * grow with the rendered duration. Mixing and resampling are deterministic:
+ * the same PCM input always renders to the same bytes on any JVM. Audio
+ * decoded by MediaCodec is not, as decoder output varies between devices.
+ */
+public class LowLatencyOfflineMixer {
+
+	public static final int SAMPLE_RATE = 44100;
+	public static final int CHANNELS = 2;
+	public static final int CHUNK_FRAMES = 4096;
+
+	private static final int BYTES_PER_FRAME = CHANNELS * 2;
+	private static final int HEADER_SIZE = 44;
+
+	private static class Voice {
+		final short[] pcm;
+		final long startFrame;
+		final float gainLeft;
+		final float gainRight;
+
+		Voice(short[] pcm, long startFrame, float gainLeft, float gainRight)
+		{
+			this.pcm = pcm;
+			this.startFrame = startFrame;
+			this.gainLeft = gainLeft;
+			this.gainRight = gainRight;
+		}
+
+		long endFrame()
+		{
+			return startFrame + pcm.length / CHANNELS;
+		}
+	}
+
+	private final ArrayList<Voice> voices = new ArrayList<Voice>();
+
+	/**
+	 * Schedules a clip of interleaved stereo samples at {@link #SAMPLE_RATE}.
+	 */
+	public void addVoice(short[] pcm, long startFrame, float gainLeft, float gainRight)
+	{
+		voices.add(new Voice(pcm, Math.max(startFrame, 0), gainLeft, gainRight));
+	}
+
+	public static long msToFrames(double ms)
+	{
+		return Math.round(ms * SAMPLE_RATE / 1000.0);
+	}
+
+	/**
+	 * Renders the scheduled voices into a 16 bit stereo WAV file.
+	 *
+	 * @return the number of frames written
+	 */
+	public long render(File outFile, long totalFrames) throws IOException
+	{
+		if (totalFrames <= 0)
+			throw new IllegalArgumentException("totalFrames must be positive: " + totalFrames);
+
+		Collections.sort(voices, new Comparator<Voice>() {
+			@Override
+			public int compare(Voice a, Voice b) {
+				return a.startFrame < b.startFrame ? -1 : (a.startFrame == b.startFrame ? 0 : 1);
+			}
+		});
+
+		float[] mix = new float[CHUNK_FRAMES * CHANNELS];
+		byte[] bytes = new byte[CHUNK_FRAMES * BYTES_PER_FRAME];
+		ArrayList<Voice> active = new ArrayList<Voice>();
+		int next = 0;
+
+		RandomAccessFile out = new RandomAccessFile(outFile, "rw");
+		try {
+			out.setLength(0);
+			writeHeader(out, 0);
+
+			for (long chunkStart = 0; chunkStart < totalFrames; chunkStart += CHUNK_FRAMES) {
+				int frames = (int) Math.min(CHUNK_FRAMES, totalFrames - chunkStart);
+				long chunkEnd = chunkStart + frames;
+
+				while (next < voices.size() && voices.get(next).startFrame < chunkEnd) {
+					active.add(voices.get(next++));
+				}
+
+				Arrays.fill(mix, 0, frames * CHANNELS, 0f);
+				for (int v = active.size() - 1; v >= 0; v--) {
+					Voice voice = active.get(v);
+					mixVoice(voice, mix, chunkStart, chunkEnd);
+					if (voice.endFrame() <= chunkEnd)
+						active.remove(v);
+				}
+
+				for (int i = 0; i < frames * CHANNELS; i++) {
+					float sample = mix[i];
+					int value = sample >= 32767f ? 32767 : (sample <= -32768f ? -32768 : (int) sample);
+					bytes[i * 2] = (byte) value;
+					bytes[i * 2 + 1] = (byte) (value >> 8);
+				}
+				out.write(bytes, 0, frames * BYTES_PER_FRAME);
+			}
+
+			out.seek(0);
+			writeHeader(out, totalFrames * BYTES_PER_FRAME);
+		} finally {
+			out.close();
+		}
+		return totalFrames;
+	}
+
+	private static void mixVoice(Voice voice, float[] mix, long chunkStart, long chunkEnd)
+	{
+		long from = Math.max(voice.startFrame, chunkStart);
+		long to = Math.min(voice.endFrame(), chunkEnd);
+		int mixIndex = (int) (from - chunkStart) * CHANNELS;
+		int pcmIndex = (int) (from - voice.startFrame) * CHANNELS;
+		int end = mixIndex + (int) (to - from) * CHANNELS;
+		final float left = voice.gainLeft;
+		final float right = voice.gainRight;
+		final short[] pcm = voice.pcm;
+		for (; mixIndex < end; mixIndex += CHANNELS, pcmIndex += CHANNELS) {
+			mix[mixIndex] += pcm[pcmIndex] * left;
+			mix[mixIndex + 1] += pcm[pcmIndex + 1] * right;
+		}
+	}
+
+	private static void writeHeader(RandomAccessFile out, long dataBytes) throws IOException
+	{
+		byte[] header = new byte[HEADER_SIZE];
+		putAscii(header, 0, "RIFF");
+		putInt(header, 4, (int) (dataBytes + HEADER_SIZE - 8));
+		putAscii(header, 8, "WAVE");
+		putAscii(header, 12, "fmt ");
+		putInt(header, 16, 16);
+		putShort(header, 20, 1); // PCM
+		putShort(header, 22, CHANNELS);
+		putInt(header, 24, SAMPLE_RATE);
+		putInt(header, 28, SAMPLE_RATE * BYTES_PER_FRAME);
+		putShort(header, 32, BYTES_PER_FRAME);
+		putShort(header, 34, 16);
+		putAscii(header, 36, "data");
+		putInt(header, 40, (int) dataBytes);
+		out.write(header);
+	}
+
+	private static void putAscii(byte[] buffer, int offset, String value)
+	{
+		for (int i = 0; i < value.length(); i++)
+			buffer[offset + i] = (byte) value.charAt(i);
+	}
+
+	private static void putShort(byte[] buffer, int offset, int value)
+	{
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >> 8);
+	}
+
+	private static void putInt(byte[] buffer, int offset, int value)
+	{
+		putShort(buffer, offset, value);
+		putShort(buffer, offset + 2, value >> 16);
+	}
+
+	/**
+	 * Converts decoded interleaved samples to stereo at {@link #SAMPLE_RATE}
+	 * using linear interpolation. Mono is copied to both channels and extra
+	 * channels are dropped.
+	 */
+	public static short[] toStereo(short[] samples, int length, int channels, int sampleRate)
+	{
+		int inFrames = length / channels;
+		if (inFrames == 0)
+			return new short[0];
+
+		long outFrames = (long) inFrames * SAMPLE_RATE / sampleRate;
+		short[] out = new short[(int) outFrames * CHANNELS];
+		int rightChannel = channels > 1 ? 1 : 0;
+		for (int frame = 0; frame < outFrames; frame++) {
+			// fixed point position keeps the result exact across platforms
+			long position = (long) frame * sampleRate;
+			int index = (int) (position / SAMPLE_RATE);
+			long fraction = position % SAMPLE_RATE;
+			int nextIndex = Math.min(index + 1, inFrames - 1);
+
+			int base = index * channels;
+			int nextBase = nextIndex * channels;
+			out[frame * CHANNELS] = (short) (samples[base]
+					+ (samples[nextBase] - samples[base]) * fraction / SAMPLE_RATE);
+			out[frame * CHANNELS + 1] = (short) (samples[base + rightChannel]
+					+ (samples[nextBase + rightChannel] - samples[base + rightChannel]) * fraction / SAMPLE_RATE);
+		}
+		return out;
+	}
+}
@@ -0,0 +1,314 @@
+/*
+THIS SOFTWARE IS PROVIDED BY ANDREW TRICE "AS IS" AND ANY EXPRESS OR
+IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+EVENT SHALL ANDREW TRICE OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.rjfun.cordova.plugin;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Computes left/right gains for positioned sounds from a single listener.
+ * Emitters are kept in parallel float arrays so an update is one tight loop
+ * per distance model, with no allocation once the arrays have grown.
+ * Distance models follow the Web Audio PannerNode definitions.
+ */
+public class LowLatencySpatializer {
+
+	public static final int DISTANCE_INVERSE = 0;
+	public static final int DISTANCE_LINEAR = 1;
+	public static final int DISTANCE_EXPONENTIAL = 2;
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final long FRAME_NANOS = 1000000000L / 60;
+
+	private int distanceModel = DISTANCE_INVERSE;
+	private float refDistance = 1;
+	private float maxDistance = 10000;
+	private float rolloffFactor = 1;
+
+	private float listenerX, listenerY, listenerZ;
+	// unit vector pointing to the listener's right
+	private float rightX = 1, rightY = 0, rightZ = 0;
+
+	private final HashMap<String, Integer> slotMap = new HashMap<String, Integer>();
+	private String[] ids = new String[INITIAL_CAPACITY];
+	private float[] x = new float[INITIAL_CAPACITY];
+	private float[] y = new float[INITIAL_CAPACITY];
+	private float[] z = new float[INITIAL_CAPACITY];
+	private float[] gainLeft = new float[INITIAL_CAPACITY];
+	private float[] gainRight = new float[INITIAL_CAPACITY];
+	private int count = 0;
+
+	public static int parseDistanceModel(String name)
+	{
+		if ("linear".equals(name))
+			return DISTANCE_LINEAR;
+		if ("exponential".equals(name))
+			return DISTANCE_EXPONENTIAL;
+		if ("inverse".equals(name))
+			return DISTANCE_INVERSE;
+		throw new IllegalArgumentException("Unknown distance model: " + name);
+	}
+
+	public synchronized void setDistanceModel(int model, float refDistance, float maxDistance, float rolloffFactor)
+	{
+		this.distanceModel = model;
+		this.refDistance = refDistance > 0 ? refDistance : 1;
+		this.maxDistance = maxDistance > this.refDistance ? maxDistance : this.refDistance + 1;
+		this.rolloffFactor = rolloffFactor >= 0 ? rolloffFactor : 0;
+	}
+
+	/**
+	 * Moves the listener. The right vector is forward x up; a degenerate
+	 * orientation keeps the previous one.
+	 */
+	public synchronized void setListener(float px, float py, float pz,
+			float fx, float fy, float fz, float ux, float uy, float uz)
+	{
+		listenerX = px;
+		listenerY = py;
+		listenerZ = pz;
+
+		float rx = fy * uz - fz * uy;
+		float ry = fz * ux - fx * uz;
+		float rz = fx * uy - fy * ux;
+		float length = (float) Math.sqrt(rx * rx + ry * ry + rz * rz);
+		if (length > 0) {
+			rightX = rx / length;
+			rightY = ry / length;
+			rightZ = rz / length;
+		}
+	}
+
+	/**
+	 * @return the emitter slot of the audio id
+	 */
+	public synchronized int setPosition(String audioID, float px, float py, float pz)
+	{
+		Integer slot = slotMap.get(audioID);
+		int index;
+		if (slot == null) {
+			if (count == x.length)
+				grow();
+			index = count++;
+			ids[index] = audioID;
+			slotMap.put(audioID, index);
+		} else {
+			index = slot;
+		}
+		x[index] = px;
+		y[index] = py;
+		z[index] = pz;
+		return index;
+	}
+
+	public synchronized void remove(String audioID)
+	{
+		Integer slot = slotMap.remove(audioID);
+		if (slot == null)
+			return;
+
+		// move the last emitter into the hole to keep the arrays dense
+		int index = slot;
+		int last = --count;
+		if (index != last) {
+			ids[index] = ids[last];
+			x[index] = x[last];
+			y[index] = y[last];
+			z[index] = z[last];
+			gainLeft[index] = gainLeft[last];
+			gainRight[index] = gainRight[last];
+			slotMap.put(ids[index], index);
+		}
+		ids[last] = null;
+	}
+
+	public synchronized void clear()
+	{
+		slotMap.clear();
+		for (int i = 0; i < count; i++)
+			ids[i] = null;
+		count = 0;
+	}
+
+	public synchronized int indexOf(String audioID)
+	{
+		Integer slot = slotMap.get(audioID);
+		return slot == null ? -1 : slot;
+	}
+
+	public synchronized int size()
+	{
+		return count;
+	}
+
+	public synchronized String getID(int index)
+	{
+		return ids[index];
+	}
+
+	public synchronized float getGainLeft(int index)
+	{
+		return gainLeft[index];
+	}
+
+	public synchronized float getGainRight(int index)
+	{
+		return gainRight[index];
+	}
+
+	/**
+	 * Recomputes the gains of every emitter.
+	 */
+	public synchronized void update()
+	{
+		switch (distanceModel) {
+		case DISTANCE_LINEAR:
+			updateLinear();
+			break;
+		case DISTANCE_EXPONENTIAL:
+			updateExponential();
+			break;
+		default:
+			updateInverse();
+			break;
+		}
+	}
+
+	private void updateInverse()
+	{
+		final float ref = refDistance;
+		final float rolloff = rolloffFactor;
+		for (int i = 0; i < count; i++) {
+			float dx = x[i] - listenerX;
+			float dy = y[i] - listenerY;
+			float dz = z[i] - listenerZ;
+			float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+			float d = Math.max(distance, ref);
+			float gain = ref / (ref + rolloff * (d - ref));
+			pan(i, gain, dx, dy, dz, distance);
+		}
+	}
+
+	private void updateLinear()
+	{
+		final float ref = refDistance;
+		final float scale = rolloffFactor / (maxDistance - refDistance);
+		final float max = maxDistance;
+		for (int i = 0; i < count; i++) {
+			float dx = x[i] - listenerX;
+			float dy = y[i] - listenerY;
+			float dz = z[i] - listenerZ;
+			float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+			float d = Math.min(Math.max(distance, ref), max);
+			float gain = Math.max(1 - scale * (d - ref), 0);
+			pan(i, gain, dx, dy, dz, distance);
+		}
+	}
+
+	private void updateExponential()
+	{
+		final float ref = refDistance;
+		final double exponent = -rolloffFactor;
+		for (int i = 0; i < count; i++) {
+			float dx = x[i] - listenerX;
+			float dy = y[i] - listenerY;
+			float dz = z[i] - listenerZ;
+			float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+			float d = Math.max(distance, ref);
+			float gain = (float) Math.pow(d / ref, exponent);
+			pan(i, gain, dx, dy, dz, distance);
+		}
+	}
+
+	/**
+	 * Equal power pan from the sine of the azimuth, i.e. the component of
+	 * the emitter direction along the listener's right vector.
+	 */
+	private void pan(int i, float gain, float dx, float dy, float dz, float distance)
+	{
+		float side = distance > 0 ? (dx * rightX + dy * rightY + dz * rightZ) / distance : 0;
+		// rounding can push an emitter on the right axis just past 1
+		side = Math.min(Math.max(side, -1f), 1f);
+		gainLeft[i] = gain * (float) Math.sqrt((1 - side) * 0.5f);
+		gainRight[i] = gain * (float) Math.sqrt((1 + side) * 0.5f);
+	}
+
+	private void grow()
+	{
+		int capacity = x.length * 2;
+		String[] newIds = new String[capacity];
+		System.arraycopy(ids, 0, newIds, 0, count);
+		ids = newIds;
+		x = copyOf(x, capacity);
+		y = copyOf(y, capacity);
+		z = copyOf(z, capacity);
+		gainLeft = copyOf(gainLeft, capacity);
+		gainRight = copyOf(gainRight, capacity);
+	}
+
+	private static float[] copyOf(float[] source, int capacity)
+	{
+		float[] copy = new float[capacity];
+		System.arraycopy(source, 0, copy, 0, source.length);
+		return copy;
+	}
+
+	/**
+	 * Moves the given number of emitters and recomputes their gains once per
+	 * frame, for the given number of frames. This is the math only: parsing
+	 * a batch and pushing the gains to SoundPool are not included.
+	 *
+	 * @return the average time of one frame in nanoseconds
+	 */
+	public static long benchmark(int emitters, int frames, int model)
+	{
+		LowLatencySpatializer spatializer = new LowLatencySpatializer();
+		spatializer.setDistanceModel(model, 1, 100, 1);
+		for (int i = 0; i < emitters; i++)
+			spatializer.setPosition("emitter" + i, 0, 0, 0);
+
+		Random random = new Random(emitters);
+		float[] positions = new float[emitters * 3];
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = random.nextFloat() * 200 - 100;
+
+		// warm up before timing
+		spatializer.update();
+
+		long start = System.nanoTime();
+		for (int frame = 0; frame < frames; frame++) {
+			synchronized (spatializer) {
+				float offset = frame * 0.01f;
+				for (int i = 0; i < emitters; i++) {
+					spatializer.x[i] = positions[i * 3] + offset;
+					spatializer.y[i] = positions[i * 3 + 1];
+					spatializer.z[i] = positions[i * 3 + 2] - offset;
+				}
+				spatializer.setListener(offset, 0, 0, 0, 0, -1, 0, 1, 0);
+				spatializer.update();
+			}
+		}
+		return (System.nanoTime() - start) / Math.max(frames, 1);
+	}
+
+	/**
+	 * @return how many emitters fit in one 60 fps frame at the given cost
+	 */
+	public static long emittersPerFrame(int emitters, long frameNanos)
+	{
+		if (frameNanos <= 0)
+			return Long.MAX_VALUE;
+		return emitters * FRAME_NANOS / frameNanos;
+	}
+}
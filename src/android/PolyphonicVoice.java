@@ -39,6 +39,8 @@ public class PolyphonicVoice implements OnPreparedListener, OnCompletionListener
 	private float volume; // Volume that this audio is initialized with
 	private float targetVolume; // Used internally to fadeIn and fadeOut
 	private float currentVolume; // Used internally to fadeIn and fadeOut
+	private float gainLeft = 1; // Spatial gains applied on top of the volume
+	private float gainRight = 1;
 
 	private LowLatencyCompletionHandler savedHandler;
 
@@ -108,7 +110,7 @@ public class PolyphonicVoice implements OnPreparedListener, OnCompletionListener
 			if (fadeIn) {
 				invokeFadeIn(increment, fadeDuration);
 			} else {
-				mp.setVolume(volume, volume);
+				mp.setVolume(volume * gainLeft, volume * gainRight);
 				mp.start();
 			}
 		}
@@ -130,7 +132,7 @@ public class PolyphonicVoice implements OnPreparedListener, OnCompletionListener
 					} else {
 						currentVolume += increment;
 					}
-					mp.setVolume(currentVolume, currentVolume);
+					mp.setVolume(currentVolume * gainLeft, currentVolume * gainRight);
 				} else {
 					timer.cancel();
 				}
@@ -158,6 +160,43 @@ public class PolyphonicVoice implements OnPreparedListener, OnCompletionListener
 		invokePlay(true);
 	}
 
+	/**
+	 * Pauses the voice without rewinding it.
+	 *
+	 * @return true if the voice was playing
+	 */
+	public boolean pause()
+	{
+		if ( mp.isPlaying() )
+		{
+			mp.pause();
+			return true;
+		}
+		return false;
+	}
+
+	public void resume()
+	{
+		mp.start();
+	}
+
+	public boolean isPlaying()
+	{
+		return mp.isPlaying();
+	}
+
+	public void setSpatialGain(float left, float right)
+	{
+		gainLeft = left;
+		gainRight = right;
+		if ( mp.isPlaying() )
+		{
+			// a fade in progress picks up the new gains on its next step
+			float level = currentVolume > 0 ? currentVolume : volume;
+			mp.setVolume(level * gainLeft, level * gainRight);
+		}
+	}
+
 	public void fadeIn(float fadeDuartion, float increment) throws IOException
 	{
 		invokePlay(true, true, fadeDuartion, increment);
@@ -180,7 +219,7 @@ public class PolyphonicVoice implements OnPreparedListener, OnCompletionListener
 						} else {
 							currentVolume -= increment;
 						}
-						mp.setVolume(currentVolume, currentVolume);
+						mp.setVolume(currentVolume * gainLeft, currentVolume * gainRight);
 					} else {
 						state = INVALID;
 						mp.pause();
@@ -0,0 +1,194 @@
+/*
+THIS SOFTWARE IS PROVIDED BY ANDREW TRICE "AS IS" AND ANY EXPRESS OR
+IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+EVENT SHALL ANDREW TRICE OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.rjfun.cordova.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Renders a fixed sequence with LowLatencyOfflineMixer and compares the WAV
+ * to a checked-in SHA-256. The input is synthesized with integer math, so
+ * the expected output is the same on every JVM. Run it with run-tests.sh;
+ * pass --update to rewrite the golden hash after an intended change.
+ */
+public class LowLatencyOfflineMixerTest {
+
+	private static final String GOLDEN = "offline-mixer.sha256";
+	private static final long DURATION_FRAMES = LowLatencyOfflineMixer.msToFrames(2500);
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		File goldenDir = new File(args.length > 0 ? args[0] : "golden");
+		boolean update = args.length > 1 && "--update".equals(args[1]);
+
+		File first = File.createTempFile("mixer", ".wav");
+		File second = File.createTempFile("mixer", ".wav");
+		try {
+			long frames = render(first);
+			render(second);
+
+			check(frames == DURATION_FRAMES, "rendered " + frames + " frames, expected " + DURATION_FRAMES);
+			checkHeader(first);
+
+			String hash = sha256(first);
+			check(hash.equals(sha256(second)), "two renders of the same sequence differ");
+			checkRejectsEmpty(second);
+
+			File golden = new File(goldenDir, GOLDEN);
+			if (update) {
+				FileOutputStream out = new FileOutputStream(golden);
+				out.write((hash + "\n").getBytes("US-ASCII"));
+				out.close();
+				System.out.println("updated " + golden + ": " + hash);
+			} else {
+				String expected = new String(readAll(golden), "US-ASCII").trim();
+				check(hash.equals(expected), "render hash " + hash + " does not match golden " + expected);
+			}
+		} finally {
+			first.delete();
+			second.delete();
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("LowLatencyOfflineMixerTest passed");
+	}
+
+	/**
+	 * A beat of overlapping clips at two source formats, with a loud pair
+	 * that clips, one clip crossing a chunk boundary and one running past
+	 * the end of the render.
+	 */
+	private static long render(File out) throws IOException
+	{
+		short[] kick = LowLatencyOfflineMixer.toStereo(saw(22050 / 4, 1, 110, 22050), 22050 / 4, 1, 22050);
+		short[] hat = LowLatencyOfflineMixer.toStereo(square(48000 / 10, 2, 3000, 48000), 48000 / 10 * 2, 2, 48000);
+		short[] pad = LowLatencyOfflineMixer.toStereo(saw(44100, 2, 220, 44100), 44100 * 2, 2, 44100);
+
+		LowLatencyOfflineMixer mixer = new LowLatencyOfflineMixer();
+		for (int beat = 0; beat < 10; beat++) {
+			mixer.addVoice(kick, LowLatencyOfflineMixer.msToFrames(beat * 250), 0.8f, 0.8f);
+			mixer.addVoice(hat, LowLatencyOfflineMixer.msToFrames(beat * 250 + 125), 0.2f, 0.6f);
+		}
+		mixer.addVoice(pad, LowLatencyOfflineMixer.CHUNK_FRAMES - 100, 0.5f, 0.25f);
+		mixer.addVoice(pad, LowLatencyOfflineMixer.msToFrames(1000), 1.5f, 1.5f);
+		mixer.addVoice(pad, LowLatencyOfflineMixer.msToFrames(1000), 1.5f, 1.5f);
+		mixer.addVoice(kick, LowLatencyOfflineMixer.msToFrames(2400), 1.0f, 0.0f);
+		return mixer.render(out, DURATION_FRAMES);
+	}
+
+	private static short[] saw(int frames, int channels, int hz, int rate)
+	{
+		short[] samples = new short[frames * channels];
+		int period = rate / hz;
+		for (int frame = 0; frame < frames; frame++) {
+			int value = (frame % period) * 40000 / period - 20000;
+			for (int channel = 0; channel < channels; channel++)
+				samples[frame * channels + channel] = (short) (channel == 0 ? value : -value);
+		}
+		return samples;
+	}
+
+	private static short[] square(int frames, int channels, int hz, int rate)
+	{
+		short[] samples = new short[frames * channels];
+		int half = rate / hz / 2;
+		for (int frame = 0; frame < frames; frame++) {
+			short value = (short) ((frame / half) % 2 == 0 ? 12000 : -12000);
+			for (int channel = 0; channel < channels; channel++)
+				samples[frame * channels + channel] = value;
+		}
+		return samples;
+	}
+
+	private static void checkRejectsEmpty(File out) throws IOException
+	{
+		try {
+			new LowLatencyOfflineMixer().render(out, 0);
+			check(false, "rendering 0 frames did not throw");
+		} catch (IllegalArgumentException e) {
+			// expected, a header with no data is never written
+		}
+	}
+
+	private static void checkHeader(File wav) throws IOException
+	{
+		byte[] bytes = readAll(wav);
+		long dataBytes = DURATION_FRAMES * 4;
+		check(bytes.length == 44 + dataBytes, "file is " + bytes.length + " bytes, expected " + (44 + dataBytes));
+		check(new String(bytes, 0, 4, "US-ASCII").equals("RIFF"), "missing RIFF tag");
+		check(new String(bytes, 8, 8, "US-ASCII").equals("WAVEfmt "), "missing WAVE fmt tags");
+		check(readInt(bytes, 4) == 36 + dataBytes, "wrong RIFF size");
+		check(readShort(bytes, 22) == 2, "not stereo");
+		check(readInt(bytes, 24) == 44100, "not 44.1 kHz");
+		check(readShort(bytes, 34) == 16, "not 16 bit");
+		check(new String(bytes, 36, 4, "US-ASCII").equals("data"), "missing data tag");
+		check(readInt(bytes, 40) == dataBytes, "wrong data size");
+	}
+
+	private static int readShort(byte[] bytes, int offset)
+	{
+		return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+	}
+
+	private static long readInt(byte[] bytes, int offset)
+	{
+		return readShort(bytes, offset) | (long) readShort(bytes, offset + 2) << 16;
+	}
+
+	private static byte[] readAll(File file) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			int read = 0;
+			while (read < bytes.length) {
+				int count = in.read(bytes, read, bytes.length - read);
+				if (count < 0)
+					break;
+				read += count;
+			}
+			return Arrays.copyOf(bytes, read);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String sha256(File file) throws IOException, NoSuchAlgorithmException
+	{
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(readAll(file));
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest)
+			hex.append(String.format("%02x", b & 0xff));
+		return hex.toString();
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition) {
+			failures++;
+			System.out.println("FAIL: " + message);
+		}
+	}
+}
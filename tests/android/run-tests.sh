@@ -0,0 +1,15 @@
+#!/bin/sh
+# Runs the JVM tests of the Android sources that do not depend on the
+# Android SDK. Needs only a JDK; pass --update to rewrite golden files.
+set -e
+
+DIR="$(cd "$(dirname "$0")" && pwd)"
+ROOT="$DIR/../.."
+OUT="$(mktemp -d)"
+trap 'rm -rf "$OUT"' EXIT
+
+javac -d "$OUT" \
+	"$ROOT/src/android/LowLatencyOfflineMixer.java" \
+	"$DIR/LowLatencyOfflineMixerTest.java"
+
+java -cp "$OUT" com.rjfun.cordova.plugin.LowLatencyOfflineMixerTest "$DIR/golden" "$@"
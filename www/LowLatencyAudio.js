@@ -56,5 +56,51 @@ module.exports  = {
 
     unload: function(id, success, fail) {
         return cordova.exec(success, fail, "LowLatencyAudio", "unload", [id]);
+    },
+
+    registerAssets: function(manifest, maxLatency, success, fail) {
+        if (maxLatency === undefined) maxLatency = null;
+
+        return cordova.exec(success, fail, "LowLatencyAudio", "registerAssets", [manifest, maxLatency]);
+    },
+
+    prefetchGroup: function(group, success, fail) {
+        return cordova.exec(success, fail, "LowLatencyAudio", "prefetchGroup", [group]);
+    },
+
+    setResourceListener: function(listener, fail) {
+        return cordova.exec(listener, fail, "LowLatencyAudio", "setResourceListener", []);
+    },
+
+    setListener: function(position, orientation, success, fail) {
+        if (orientation === undefined) orientation = [0, 0, -1, 0, 1, 0];
+
+        return cordova.exec(success, fail, "LowLatencyAudio", "setListener", [position, orientation]);
+    },
+
+    setDistanceModel: function(model, refDistance, maxDistance, rolloffFactor, success, fail) {
+        if (refDistance === undefined) refDistance = 1;
+        if (maxDistance === undefined) maxDistance = 10000;
+        if (rolloffFactor === undefined) rolloffFactor = 1;
+
+        return cordova.exec(success, fail, "LowLatencyAudio", "setDistanceModel", [model, refDistance, maxDistance, rolloffFactor]);
+    },
+
+    setPosition: function(id, x, y, z, success, fail) {
+        return cordova.exec(success, fail, "LowLatencyAudio", "setPosition", [id, x, y, z]);
+    },
+
+    setPositions: function(positions, success, fail) {
+        return cordova.exec(success, fail, "LowLatencyAudio", "setPositions", positions);
+    },
+
+    benchmarkSpatial: function(emitters, frames, success, fail) {
+        if (frames === undefined) frames = 600;
+
+        return cordova.exec(success, fail, "LowLatencyAudio", "benchmarkSpatial", [emitters, frames]);
+    },
+
+    renderOffline: function(sequence, durationMs, outPath, success, fail) {
+        return cordova.exec(success, fail, "LowLatencyAudio", "renderOffline", [sequence, durationMs, outPath]);
     }
 };